@@ -105,6 +105,12 @@ public class Client {
       if (error == 1) {
         // If error check was for 'list' command.
         listError();
+      } else if (error == 3) {
+        // If error check was for 'leave' command.
+        leaveError();
+      } else if (error == 2) {
+        // If error check was for 'watch' command.
+        watchError();
       } else {
         // If error check was for 'join' command.
         joinError();
@@ -137,6 +143,14 @@ public class Client {
         }
         break;   
 
+      // If user types in the command 'stats'.
+      case "stats":
+        if (args.length != 1) {
+          statsError();
+          System.exit(1);
+        }
+        break;
+
       // If user types in the command 'list'.
       case "list":
         if (args.length != 2) {
@@ -157,6 +171,26 @@ public class Client {
         }
         break;
 
+      // If user types in the command 'leave'.
+      case "leave":
+        if (args.length != 3) {
+          leaveError();
+          System.exit(1);
+        } else {
+          integerCheck(args[1], 3);
+        }
+        break;
+
+      // If user types in the command 'watch'.
+      case "watch":
+        if (args.length != 2) {
+          watchError();
+          System.exit(1);
+        } else if (!args[1].equals("totals")) {
+          integerCheck(args[1], 2);
+        }
+        break;
+
       // If user types another command.
       default:
         printError();
@@ -171,9 +205,12 @@ public class Client {
     System.out.println("Error: Usage is java Client <args>\n");
     System.out.println("Acceptable commands:");
     System.out.println("java Client totals");
+    System.out.println("java Client stats");
     System.out.println("java Client list <int::list number>");
-    System.out.println("java Client join <int::list number> <String::name>\n");
-    System.out.println("Note: For joining with a full name, enclose with double quotes");
+    System.out.println("java Client join <int::list number> <String::name>");
+    System.out.println("java Client leave <int::list number> <String::name>");
+    System.out.println("java Client watch <int::list number | totals>\n");
+    System.out.println("Note: For joining or leaving with a full name, enclose with double quotes");
     
     // Exits program.
     System.exit(1);
@@ -186,6 +223,13 @@ public class Client {
     System.out.println("Error: Usage for 'totals' is java Client totals");
   }
 
+  /**
+   * Prints error for command "stats".
+   */
+  public static void statsError() {
+    System.out.println("Error: Usage for 'stats' is java Client stats");
+  }
+
   /**.
    * Prints error for command "list".
    */
@@ -201,6 +245,21 @@ public class Client {
     System.out.println("Note: For joining with a full name, enclose with double quotes");
   }
 
+  /**
+   * Prints error for command "leave".
+   */
+  public static void leaveError() {
+    System.out.println("Error: Usage for 'leave' is java Client leave <int::list number> <String::name>");
+    System.out.println("Note: For leaving with a full name, enclose with double quotes");
+  }
+
+  /**
+   * Prints error for command "watch".
+   */
+  public static void watchError() {
+    System.out.println("Error: Usage for 'watch' is java Client watch <int::list number | totals>");
+  }
+
   /**
    * Validates client command line arguments and connects to server.
    * 
@@ -219,9 +278,9 @@ public class Client {
     BufferedReader socketInput = null;
 
     try {
-      // Try and create the socket using port 9246.
-      // This assumes the server is running on the same machine, "localhost".
-      socket = new Socket("localhost", 9246);
+      // Try and create the socket using port 9246, unless -Dserver.port is given.
+      // This assumes the server is running on the same machine, "localhost", unless -Dserver.host is given.
+      socket = new Socket(System.getProperty("server.host", "localhost"), Integer.getInteger("server.port", 9246));
 
       // Chain a writing stream
       socketOutput = new PrintWriter(socket.getOutputStream(), true);
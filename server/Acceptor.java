@@ -0,0 +1,219 @@
+//
+// Acceptor thread that accepts client connections on a server socket
+// and hands each connection to the executor.
+// Several acceptors can share a port, each with its own socket (SO_REUSEPORT)
+// or all on one socket where SO_REUSEPORT is not supported.
+//
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+public class Acceptor extends Thread {
+
+  // Number of connections accepted and failed accepts, across all acceptors.
+  private static LongAdder accepted = new LongAdder();
+  private static LongAdder failed = new LongAdder();
+
+  // Accept count and time when the accept rate was last measured (guarded by Acceptor.class).
+  private static long lastCount = 0;
+  private static long lastTime = System.nanoTime();
+  private static double rate = 0;
+
+  // Listen queue overflows and drops reported by the kernel at startup.
+  private static long[] baseOverflows = readListenOverflows();
+
+  // Socket to accept connections on.
+  private ServerSocket serverSocket;
+
+  // Executor that runs client handlers.
+  private ExecutorService service;
+
+  // Creates the client handler for an accepted connection.
+  private Function<Socket, Runnable> handlers;
+
+  // Whether to disable Nagle's algorithm on accepted connections.
+  private boolean tcpNoDelay;
+
+  // Send buffer size for accepted connections, or 0 for the system default.
+  private int sendBufferSize;
+
+  /**
+   * Creates an acceptor.
+   *
+   * @param number Number of the acceptor, used in the thread name
+   * @param serverSocket Bound socket to accept connections on
+   * @param service Executor that runs client handlers
+   * @param handlers Creates the client handler for an accepted connection
+   * @param tcpNoDelay Whether to disable Nagle's algorithm on accepted connections
+   * @param sendBufferSize Send buffer size for accepted connections, or 0 for the system default
+   */
+  public Acceptor(int number, ServerSocket serverSocket, ExecutorService service,
+      Function<Socket, Runnable> handlers, boolean tcpNoDelay, int sendBufferSize) {
+    // Sets all private variables.
+    super("Acceptor-" + Integer.toString(number));
+    this.serverSocket = serverSocket;
+    this.service = service;
+    this.handlers = handlers;
+    this.tcpNoDelay = tcpNoDelay;
+    this.sendBufferSize = sendBufferSize;
+  }
+
+  /**
+   * Checks if several server sockets can be bound to the same port.
+   *
+   * @return True if SO_REUSEPORT is supported
+   */
+  public static boolean supportsReusePort() {
+    try (ServerSocket probe = new ServerSocket()) {
+      return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Creates and binds a server socket.
+   *
+   * @param address Address and port to bind to
+   * @param backlog Maximum length of the queue of pending connections
+   * @param reusePort Whether to let other sockets bind to the same port
+   * @param receiveBufferSize Receive buffer size for accepted connections, or 0 for the system default
+   * @return Bound server socket
+   * @throws IOException If the socket cannot be bound
+   */
+  public static ServerSocket bind(InetSocketAddress address, int backlog, boolean reusePort,
+      int receiveBufferSize) throws IOException {
+    ServerSocket serverSocket = new ServerSocket();
+
+    // Options that must be set before binding.
+    if (reusePort) {
+      serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+    }
+    if (receiveBufferSize > 0) {
+      serverSocket.setReceiveBufferSize(receiveBufferSize);
+    }
+
+    // Binds socket.
+    serverSocket.bind(address, backlog);
+    return serverSocket;
+  }
+
+  /**
+   * Reads the number of times the kernel's listen queues overflowed, and connections it dropped.
+   * Only available on Linux, and counted for the whole system rather than this server.
+   *
+   * @return Listen overflows and listen drops, or null if not available
+   */
+  public static long[] readListenOverflows() {
+    try {
+      // File has a line of names followed by a line of values for each protocol.
+      List<String> lines = Files.readAllLines(Paths.get("/proc/net/netstat"));
+      for (int i = 0; i + 1 < lines.size(); i++) {
+        if (lines.get(i).startsWith("TcpExt:")) {
+          List<String> names = Arrays.asList(lines.get(i).split(" "));
+          String[] values = lines.get(i + 1).split(" ");
+          int overflows = names.indexOf("ListenOverflows");
+          int drops = names.indexOf("ListenDrops");
+          if (overflows < 0 || drops < 0) {
+            return null;
+          }
+          return new long[] { Long.parseLong(values[overflows]), Long.parseLong(values[drops]) };
+        }
+      }
+    } catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      // Not available on this system.
+    }
+    return null;
+  }
+
+  /**
+   * Returns accept statistics.
+   *
+   * @return Server message for user command "stats"
+   */
+  public static synchronized String getStats() {
+    // Measures accept rate since it was last measured, at most once a second.
+    long now = System.nanoTime();
+    long count = accepted.sum();
+    if (now - lastTime >= 1000000000L) {
+      rate = (count - lastCount) / ((now - lastTime) / 1e9);
+      lastCount = count;
+      lastTime = now;
+    }
+
+    // Accept counts and rate.
+    String output = "Accepted " + Long.toString(count) + " connection(s) at " + String.format("%.1f", rate)
+      + "/s, with " + Long.toString(failed.sum()) + " failed accept(s).\n";
+
+    // Listen queue overflows since startup.
+    long[] overflows = readListenOverflows();
+    if (baseOverflows == null || overflows == null) {
+      output += "Listen queue overflows are not available.";
+    } else {
+      output += "Listen queue overflowed " + Long.toString(overflows[0] - baseOverflows[0]) + " time(s), dropping "
+        + Long.toString(overflows[1] - baseOverflows[1]) + " connection(s) (system-wide).";
+    }
+
+    // Returns statistics.
+    return output;
+  }
+
+  /**
+   * Continuously accepts client connections and submits a handler for each.
+   */
+  @Override
+  public void run() {
+    // Time to wait after a failed accept, doubling while accepts keep failing.
+    long backoff = 0;
+
+    while (!serverSocket.isClosed()) {
+      // Stores accepted connection.
+      Socket client;
+
+      try {
+        client = serverSocket.accept();
+        accepted.increment();
+        backoff = 0;
+      } catch (IOException e) {
+        failed.increment();
+
+        // Reports the first failure only, then backs off so a persistent error (e.g. out of file handles) does not spin.
+        if (backoff == 0) {
+          System.out.println("Error: Could not accept client connection.");
+        }
+        backoff = Math.min(1000, Math.max(10, backoff * 2));
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException ex) {
+          return;
+        }
+        continue;
+      }
+
+      try {
+        // Applies socket options.
+        client.setTcpNoDelay(tcpNoDelay);
+        if (sendBufferSize > 0) {
+          client.setSendBufferSize(sendBufferSize);
+        }
+
+        // Handles request on the executor.
+        service.submit(handlers.apply(client));
+      } catch (IOException | RejectedExecutionException e) {
+        System.out.println("Error: Could not set up client connection.");
+
+        // Free up resources for this connection.
+        try {
+          client.close();
+        } catch (IOException ex) {
+          System.out.println("Error: Could not close client connection.");
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+//
+// Log of client requests, written to "log.txt".
+// Rotates the log to "log-<date>-<time>.txt" once it reaches a maximum size or age.
+//
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.format.DateTimeFormatter;
+import java.time.LocalDateTime;
+
+public class AccessLog {
+
+  // Filename of the current log.
+  public static final String FILENAME = "log.txt";
+
+  // Maximum size of the log before rotating, in bytes.
+  private long maxBytes;
+
+  // Maximum age of the log before rotating, in milliseconds.
+  private long maxMillis;
+
+  // Output to the current log (guarded by this).
+  private FileOutputStream out;
+
+  // Size of the current log, in bytes (guarded by this).
+  private long size;
+
+  // Time the current log was opened, in milliseconds (guarded by this).
+  private long openedAt;
+
+  /**
+   * Creates an access log, appending to any existing log.
+   *
+   * @param maxBytes Maximum size of the log before rotating, in bytes
+   * @param maxMillis Maximum age of the log before rotating, in milliseconds
+   * @throws IOException If the log cannot be opened
+   */
+  public AccessLog(long maxBytes, long maxMillis) throws IOException {
+    // Sets all private variables.
+    this.maxBytes = maxBytes;
+    this.maxMillis = maxMillis;
+
+    // Opens log.
+    open();
+  }
+
+  /**
+   * Opens the current log for appending.
+   *
+   * @throws IOException If the log cannot be opened
+   */
+  private void open() throws IOException {
+    out = new FileOutputStream(FILENAME, true);
+    size = out.getChannel().size();
+    openedAt = System.currentTimeMillis();
+  }
+
+  /**
+   * Renames the current log with the time of rotation and starts a new log.
+   *
+   * @throws IOException If the log cannot be rotated
+   */
+  private void rotate() throws IOException {
+    // Closes current log.
+    out.close();
+
+    // Creates a filename that is not already taken.
+    String stamp = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").format(LocalDateTime.now());
+    Path rotated = Paths.get("log-" + stamp + ".txt");
+    for (int i = 1; Files.exists(rotated); i++) {
+      rotated = Paths.get("log-" + stamp + "-" + Integer.toString(i) + ".txt");
+    }
+
+    // Renames current log and opens a new one, reopening the current log if it could not be renamed.
+    try {
+      Files.move(Paths.get(FILENAME), rotated, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      open();
+    }
+  }
+
+  /**
+   * Appends a line to the log, rotating first if the log is too large or too old.
+   *
+   * @param line Line to append, including end of line character
+   * @throws IOException If the log cannot be written
+   */
+  public synchronized void write(String line) throws IOException {
+    byte[] bytes = line.getBytes();
+
+    // Rotates if the line would take the log over its size, or the log is too old.
+    if (size > 0 && (size + bytes.length > maxBytes || System.currentTimeMillis() - openedAt >= maxMillis)) {
+      rotate();
+    }
+
+    // Writes line.
+    out.write(bytes);
+    size += bytes.length;
+  }
+}
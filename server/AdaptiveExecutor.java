@@ -0,0 +1,228 @@
+//
+// Executor that adjusts its number of worker threads between bounds.
+// Measures queue wait time, service time and throughput of client requests,
+// and resizes using Little's law with a hill climbing check on throughput.
+//
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class AdaptiveExecutor extends ThreadPoolExecutor {
+
+  // Fraction of worker time that should be spent busy, leaving room for bursts.
+  private static final double TARGET_UTILISATION = 0.8;
+
+  // Minimum relative throughput gain for a grow to be considered worthwhile.
+  private static final double MIN_GAIN = 0.05;
+
+  // Minimum and maximum number of worker threads.
+  private int minThreads;
+  private int maxThreads;
+
+  // Number of requests completed, and their total wait and service time in nanoseconds.
+  private LongAdder completed = new LongAdder();
+  private LongAdder waitNanos = new LongAdder();
+  private LongAdder serviceNanos = new LongAdder();
+
+  // Totals when the controller last ran.
+  private long lastCompleted = 0;
+  private long lastWaitNanos = 0;
+  private long lastServiceNanos = 0;
+  private long lastTime = System.nanoTime();
+  private int lastQueued = 0;
+
+  // Throughput after the previous decision, and whether that decision was a grow.
+  private double lastThroughput = 0;
+  private boolean lastGrew = false;
+
+  // Size at which growing last stopped raising throughput, so the pool does not oscillate.
+  private int plateau = Integer.MAX_VALUE;
+
+  // Runs the controller periodically.
+  private ScheduledExecutorService controller;
+
+  /**
+   * Creates an adaptive executor, starting at the minimum number of threads.
+   *
+   * @param minThreads Minimum number of worker threads
+   * @param maxThreads Maximum number of worker threads
+   * @param intervalMillis Time between resize decisions, in milliseconds
+   */
+  public AdaptiveExecutor(int minThreads, int maxThreads, long intervalMillis) {
+    super(minThreads, minThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    // Sets all private variables.
+    this.minThreads = minThreads;
+    this.maxThreads = maxThreads;
+
+    // Starts the controller.
+    controller = Executors.newSingleThreadScheduledExecutor();
+    controller.scheduleAtFixedRate(this::adjust, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Task that records how long it waited in the queue and how long it ran.
+   */
+  private class Timed implements Runnable {
+
+    // Task to run.
+    private Runnable task;
+
+    // Time the task was queued, in nanoseconds.
+    private long queued = System.nanoTime();
+
+    /**
+     * Creates a timed task.
+     *
+     * @param task Task to run
+     */
+    private Timed(Runnable task) {
+      this.task = task;
+    }
+
+    /**
+     * Runs the task, recording its wait and service time.
+     */
+    @Override
+    public void run() {
+      // Records time spent waiting in the queue.
+      long started = System.nanoTime();
+      waitNanos.add(started - queued);
+
+      try {
+        task.run();
+      } finally {
+        // Records time spent running.
+        serviceNanos.add(System.nanoTime() - started);
+        completed.increment();
+      }
+    }
+  }
+
+  /**
+   * Queues a task, recording when it was queued to measure its wait time.
+   *
+   * @param task Task to execute
+   */
+  @Override
+  public void execute(Runnable task) {
+    super.execute(new Timed(task));
+  }
+
+  /**
+   * Measures how long the oldest queued task has been waiting.
+   *
+   * @param now Current time, in nanoseconds
+   * @return Wait time of the oldest queued task in milliseconds, or 0 if none are queued
+   */
+  private double oldestWait(long now) {
+    Runnable oldest = getQueue().peek();
+    return (oldest instanceof Timed) ? (now - ((Timed) oldest).queued) / 1e6 : 0;
+  }
+
+  /**
+   * Sets the number of worker threads.
+   *
+   * @param size New number of worker threads
+   */
+  private void resize(int size) {
+    // Core size may not exceed the maximum size, so the order depends on the direction.
+    if (size > getCorePoolSize()) {
+      setMaximumPoolSize(size);
+      setCorePoolSize(size);
+    } else {
+      setCorePoolSize(size);
+      setMaximumPoolSize(size);
+    }
+  }
+
+  /**
+   * Measures the last interval and resizes the pool if needed, logging every resize.
+   */
+  private void adjust() {
+    // Measures the interval since the last decision.
+    long now = System.nanoTime();
+    long done = completed.sum() - lastCompleted;
+    long waited = waitNanos.sum() - lastWaitNanos;
+    long serviced = serviceNanos.sum() - lastServiceNanos;
+    double seconds = (now - lastTime) / 1e9;
+    int queued = getQueue().size();
+
+    // Stores totals for the next interval.
+    lastCompleted += done;
+    lastWaitNanos += waited;
+    lastServiceNanos += serviced;
+    lastTime = now;
+
+    // Throughput, and arrival rate including any growth of the queue.
+    double throughput = done / seconds;
+    double arrivals = (done + queued - lastQueued) / seconds;
+    lastQueued = queued;
+
+    // Average wait and service time in milliseconds. Tasks still queued count with their wait so far,
+    // so waiting is seen even when every worker is blocked and nothing completes.
+    double avgWait = Math.max((done == 0) ? 0 : waited / 1e6 / done, oldestWait(now));
+    double avgService = (done == 0) ? 0 : serviced / 1e6 / done;
+
+    // Current and new number of threads.
+    int size = getCorePoolSize();
+    int target = size;
+    String reason = null;
+
+    // Load has changed since the plateau was found, so allows growing again.
+    if (throughput < lastThroughput * (1 - MIN_GAIN)) {
+      plateau = Integer.MAX_VALUE;
+    }
+
+    if (done == 0 && queued == 0) {
+      // Idle, so releases threads gradually, unless workers are still busy with long requests.
+      if (getActiveCount() == 0) {
+        target = size - Math.max(1, size / 8);
+        reason = "idle";
+      }
+    } else {
+      // Little's law: threads needed = arrival rate * service time, kept below full utilisation.
+      int needed = (int) Math.ceil(Math.max(arrivals, throughput) * avgService / 1000 / TARGET_UTILISATION);
+
+      if (lastGrew && throughput < lastThroughput * (1 + MIN_GAIN) && queued > 0) {
+        // Last grow did not raise throughput, so workers are contending for something else.
+        target = size - Math.max(1, size / 8);
+        plateau = target;
+        reason = "no throughput gain from last grow";
+      } else if (queued > 0 && (done == 0 || avgWait > avgService)) {
+        // Requests wait longer than they run, or none complete while requests wait, so adds threads up to the plateau.
+        // When nothing completes, grows by up to the queue length, at most doubling.
+        int step = (done == 0) ? Math.min(queued, size) : Math.max(1, size / 4);
+        target = Math.max(size, Math.min(plateau, Math.max(needed, size + step)));
+        reason = (done == 0) ? "no request completed while requests are queued" : "queue wait exceeds service time";
+      } else if (needed < size) {
+        // More threads than the load needs, so releases them gradually.
+        target = Math.max(needed, size - Math.max(1, size / 8));
+        reason = "more threads than needed";
+      }
+    }
+
+    // Keeps the size within bounds.
+    target = Math.max(minThreads, Math.min(maxThreads, target));
+
+    if (target != size) {
+      System.out.println(String.format(
+        "Pool: resized %d -> %d (%s; wait %.2fms, service %.2fms, throughput %.1f/s, queued %d).",
+        size, target, reason, avgWait, avgService, throughput, queued));
+      resize(target);
+    }
+
+    // Stores result for the hill climbing check.
+    lastGrew = target > size;
+    lastThroughput = throughput;
+  }
+
+  /**
+   * Stops the controller and the worker threads.
+   */
+  @Override
+  public void shutdown() {
+    controller.shutdown();
+    super.shutdown();
+  }
+}
@@ -6,7 +6,6 @@
 
 import java.net.*;
 import java.io.*;
-import java.nio.file.*;
 import java.time.format.DateTimeFormatter;
 import java.time.LocalDateTime;
 
@@ -21,19 +20,40 @@ public class ClientHandler extends Thread {
   // Maximum number of members per list.
   private int maxMembers;
 
+  // Clients watching for list changes.
+  private Watchers watchers;
+
+  // Shared state of the list files.
+  private ListStore store;
+
+  // Cache of encoded responses.
+  private ResponseCache cache;
+
+  // Log of client requests.
+  private AccessLog accessLog;
+
   /**
    * Creates a client handler.
    * 
    * @param socket Server socket
    * @param numberOfLists Array of lists
    * @param maxMembers Maximum number of members per list
+   * @param watchers Clients watching for list changes
+   * @param store Shared state of the list files
+   * @param cache Cache of encoded responses
+   * @param accessLog Log of client requests
    */
-  public ClientHandler(Socket socket, int numberOfLists, int maxMembers) {
+  public ClientHandler(Socket socket, int numberOfLists, int maxMembers, Watchers watchers, ListStore store,
+      ResponseCache cache, AccessLog accessLog) {
     // Sets all private variables.
     super("ClientHandler");
     this.socket = socket;
     this.numberOfLists = numberOfLists;
     this.maxMembers = maxMembers;
+    this.watchers = watchers;
+    this.store = store;
+    this.cache = cache;
+    this.accessLog = accessLog;
   }
 
   /**
@@ -62,20 +82,92 @@ public class ClientHandler extends Thread {
    * 
    * @param request Client request
    * @param out Socket output connected to client
+   * @throws IOException If the response cannot be written
    */
-  public void sendResponse(String request, PrintWriter out) {
+  public void sendResponse(String request, OutputStream out) throws IOException {
     // Initialise a protocol object for this client.
-    Protocol protocol = new Protocol(numberOfLists, maxMembers);
+    Protocol protocol = new Protocol(numberOfLists, maxMembers, watchers, store, cache);
+
+    // Processes client request into encoded response, possibly cached.
+    byte[] serverOutput = protocol.respond(request);
+
+    // Writes server output to client.
+    out.write(serverOutput);
+    out.flush();
+  }
+
+  /**
+   * Subscribes client to changes of a list or of totals, keeping the connection open.
+   * The current state is sent first, followed by every change as it happens.
+   * 
+   * @param request Client request
+   * @param out Socket output connected to client
+   * @return True if the client is now watching, false if the request was invalid
+   */
+  public boolean startWatch(String request, PrintWriter out) {
+    // Split client input into request.
+    String[] args = request.split(" ");
+
+    // Initialise a protocol object for the current state.
+    Protocol protocol = new Protocol(numberOfLists, maxMembers, watchers, store, cache);
+
+    // Stores list to watch (0 for totals).
+    int listNumber;
+
+    if (args.length == 2 && args[1].equals("totals")) {
+      // Watches totals.
+      listNumber = 0;
+    } else {
+      try {
+        listNumber = Integer.parseInt(args[1]);
+      } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+        out.println("Error: Could not process input.");
+        return false;
+      }
+
+      // Checks if list exists.
+      if (args.length != 2 || listNumber < 1 || listNumber > numberOfLists) {
+        out.println("Failed. There is no list " + args[args.length - 1] + ".");
+        return false;
+      }
+    }
+
+    // Lists whose changes are watched, all of them for totals.
+    int first = (listNumber == 0) ? 1 : listNumber;
+    int last = (listNumber == 0) ? numberOfLists : listNumber;
+
+    // Stores watcher.
+    Watcher watcher;
+
+    // Joins and leaves publish while holding their list's lock, so holding the watched lists' locks
+    // means every change is either in the current state or delivered after it.
+    for (int i = first; i <= last; i++) {
+      store.lock(i);
+    }
+    try {
+      watcher = new Watcher(socket, listNumber, numberOfLists, watchers);
+
+      // Queues current state before subscribing, so it is written before any change.
+      watcher.push((listNumber == 0) ? protocol.processTotal() : protocol.processList(listNumber));
+      watchers.subscribe(watcher);
+    } catch (IOException e) {
+      System.err.println("Error: Could not connect to client.");
+      return false;
+    } finally {
+      for (int i = last; i >= first; i--) {
+        store.unlock(i);
+      }
+    }
 
-    // Processes client request.
-    String serverOutput = protocol.processInput(request);
+    // Starts writing to the client.
+    watcher.start();
 
-    // Prints server output to client.
-    out.println(serverOutput);
+    // Connection is now owned by the watcher.
+    return true;
   }
 
   /**
-   * Logs client request in "log.txt" file.
+   * Logs client request in "log.txt" file, which is rotated when it grows too large or old.
    * 
    * @param request Client request
    */
@@ -92,7 +184,7 @@ public class ClientHandler extends Thread {
       String log = date+"|"+time+"|"+clientIP+"|"+request+"\n";
 
       // Writes logging information to log file.
-      Files.write(Paths.get("log.txt"), log.getBytes(), StandardOpenOption.APPEND);
+      accessLog.write(log);
     
     } catch (IOException e) {
       System.out.println("Error: Could not write to log file.");
@@ -115,8 +207,15 @@ public class ClientHandler extends Thread {
       // Logs request.
       logRequest(request);
 
-      // Sends server response to client.
-      sendResponse(request, out);
+      // Hands the connection to a watcher, leaving it open.
+      if (request != null && request.startsWith("watch")) {
+        if (startWatch(request, out)) {
+          return;
+        }
+      } else {
+        // Sends server response to client.
+        sendResponse(request, socket.getOutputStream());
+      }
 
       // Free up resources for this connection.
       out.close();
@@ -0,0 +1,131 @@
+//
+// Background task that compacts list files.
+// Rewrites a list without members that left once its share of tombstones is too high,
+// then swaps the new file in atomically.
+//
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class ListCompactor implements Runnable {
+
+  // Shared state of the list files.
+  private ListStore store;
+
+  // Percentage of dead lines, tombstones and the member lines they remove, at which a list file is compacted.
+  private int threshold;
+
+  /**
+   * Creates a list compactor.
+   *
+   * @param store Shared state of the list files
+   * @param threshold Percentage of dead lines (tombstones and the member lines they remove) at which a list file is compacted
+   */
+  public ListCompactor(ListStore store, int threshold) {
+    // Sets all private variables.
+    this.store = store;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Compacts a list file. Joins and leaves are only blocked while lines written
+   * during compaction are copied over and the file is swapped, and reads are never blocked.
+   *
+   * @param listNumber List number, starting from 1
+   * @throws IOException If the list cannot be read or written
+   */
+  public void compact(int listNumber) throws IOException {
+    // Produces the filenames for the list and its compacted copy.
+    Path list = Paths.get(ListStore.filename(listNumber));
+    Path temp = Paths.get(ListStore.filename(listNumber) + ".compact");
+
+    // Stores length and number of lines of the file being compacted.
+    long length;
+    int lines;
+    int tombstones;
+
+    store.lock(listNumber);
+    try {
+      length = Files.size(list);
+      lines = store.getLines(listNumber);
+      tombstones = store.getTombstones(listNumber);
+    } finally {
+      store.unlock(listNumber);
+    }
+
+    // Reads the file up to its length, without holding the lock.
+    byte[] head = new byte[(int) length];
+    try (FileChannel in = FileChannel.open(list, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.wrap(head);
+      while (buffer.hasRemaining()) {
+        if (in.read(buffer, buffer.position()) < 0) {
+          break;
+        }
+      }
+    }
+
+    // Writes the current members to the compacted copy.
+    List<String> members = Protocol.readMembers(new BufferedReader(new StringReader(new String(head))));
+    StringBuilder output = new StringBuilder();
+    for (String member : members) {
+      output.append(Protocol.encodeMember(member)).append("\n");
+    }
+    Files.write(temp, output.toString().getBytes());
+
+    store.lock(listNumber);
+    try {
+      // Copies lines written since the file was read, then swaps the files.
+      try (FileChannel in = FileChannel.open(list, StandardOpenOption.READ);
+           FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+        long position = length;
+        while (position < in.size()) {
+          position += in.transferTo(position, in.size() - position, out);
+        }
+      }
+      Files.move(temp, list, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+      // Records the lines removed.
+      store.recordCompaction(listNumber, lines - members.size(), tombstones);
+    } finally {
+      store.unlock(listNumber);
+    }
+
+    System.out.println("Compacted list " + Integer.toString(listNumber) + ", removed " + Integer.toString(lines - members.size()) + " line(s).");
+  }
+
+  /**
+   * Compacts every list file whose share of dead lines has reached the threshold.
+   */
+  @Override
+  public void run() {
+    for (int i = 1; i <= store.size(); i++) {
+      // Stores number of lines and tombstones.
+      int lines;
+      int tombstones;
+
+      store.lock(i);
+      try {
+        lines = store.getLines(i);
+        tombstones = store.getTombstones(i);
+      } finally {
+        store.unlock(i);
+      }
+
+      // Compacts if the share of dead lines is at or above the threshold.
+      // Each tombstone removes one member line, so both count as dead.
+      if (tombstones > 0 && 2L * tombstones * 100 >= (long) threshold * lines) {
+        try {
+          compact(i);
+        } catch (IOException e) {
+          System.out.println("Error: Could not compact list " + Integer.toString(i) + ".");
+
+          // Removes any partial copy, the list file is left unchanged.
+          new File(ListStore.filename(i) + ".compact").delete();
+        }
+      }
+    }
+  }
+}
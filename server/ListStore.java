@@ -0,0 +1,163 @@
+//
+// Shared state of the list files.
+// Serialises writes to each list, tracks tombstones for compaction
+// and versions each list so cached responses can be invalidated.
+//
+
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+public class ListStore {
+
+  // Lock per list, held while writing to or swapping the list file.
+  private ReentrantLock[] locks;
+
+  // Number of lines in each list file, members and tombstones (guarded by the list's lock).
+  private int[] lines;
+
+  // Number of tombstone lines in each list file (guarded by the list's lock).
+  private int[] tombstones;
+
+  // Version of each list, bumped by every join and leave.
+  private AtomicLongArray versions;
+
+  // Version of all lists together, bumped by every join and leave.
+  private AtomicLong version = new AtomicLong();
+
+  /**
+   * Creates a list store for empty list files.
+   *
+   * @param numberOfLists Total number of lists
+   */
+  public ListStore(int numberOfLists) {
+    // Sets all private variables.
+    this.locks = new ReentrantLock[numberOfLists];
+    this.lines = new int[numberOfLists];
+    this.tombstones = new int[numberOfLists];
+    this.versions = new AtomicLongArray(numberOfLists);
+
+    // Creates a lock for each list.
+    for (int i = 0; i < numberOfLists; i++) {
+      locks[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Produces the filename for a list.
+   *
+   * @param listNumber List number, starting from 1
+   * @return Filename of the list
+   */
+  public static String filename(int listNumber) {
+    return "list-" + Integer.toString(listNumber - 1) + ".txt";
+  }
+
+  /**
+   * Returns the number of lists.
+   *
+   * @return Total number of lists
+   */
+  public int size() {
+    return locks.length;
+  }
+
+  /**
+   * Locks a list for writing.
+   *
+   * @param listNumber List number, starting from 1
+   */
+  public void lock(int listNumber) {
+    locks[listNumber - 1].lock();
+  }
+
+  /**
+   * Unlocks a list after writing.
+   *
+   * @param listNumber List number, starting from 1
+   */
+  public void unlock(int listNumber) {
+    locks[listNumber - 1].unlock();
+  }
+
+  /**
+   * Records a member line appended to a list. Must hold the list's lock.
+   *
+   * @param listNumber List number, starting from 1
+   */
+  public void recordJoin(int listNumber) {
+    lines[listNumber - 1]++;
+    bumpVersion(listNumber);
+  }
+
+  /**
+   * Records a tombstone line appended to a list. Must hold the list's lock.
+   *
+   * @param listNumber List number, starting from 1
+   */
+  public void recordLeave(int listNumber) {
+    lines[listNumber - 1]++;
+    tombstones[listNumber - 1]++;
+    bumpVersion(listNumber);
+  }
+
+  /**
+   * Bumps the version of a list and of all lists after its members changed.
+   *
+   * @param listNumber List number, starting from 1
+   */
+  private void bumpVersion(int listNumber) {
+    versions.incrementAndGet(listNumber - 1);
+    version.incrementAndGet();
+  }
+
+  /**
+   * Returns the version of a list. Does not need the list's lock.
+   *
+   * @param listNumber List number, starting from 1
+   * @return Version, which changes whenever the members of the list change
+   */
+  public long getVersion(int listNumber) {
+    return versions.get(listNumber - 1);
+  }
+
+  /**
+   * Returns the version of all lists together. Does not need any lock.
+   *
+   * @return Version, which changes whenever the members of any list change
+   */
+  public long getVersion() {
+    return version.get();
+  }
+
+  /**
+   * Returns the number of lines in a list file. Must hold the list's lock.
+   *
+   * @param listNumber List number, starting from 1
+   * @return Number of member and tombstone lines
+   */
+  public int getLines(int listNumber) {
+    return lines[listNumber - 1];
+  }
+
+  /**
+   * Returns the number of tombstone lines in a list file. Must hold the list's lock.
+   *
+   * @param listNumber List number, starting from 1
+   * @return Number of tombstone lines
+   */
+  public int getTombstones(int listNumber) {
+    return tombstones[listNumber - 1];
+  }
+
+  /**
+   * Records that a list file has been compacted. Must hold the list's lock.
+   *
+   * @param listNumber List number, starting from 1
+   * @param removedLines Number of lines removed by compaction
+   * @param removedTombstones Number of tombstones removed by compaction
+   */
+  public void recordCompaction(int listNumber, int removedLines, int removedTombstones) {
+    lines[listNumber - 1] -= removedLines;
+    tombstones[listNumber - 1] -= removedTombstones;
+  }
+}
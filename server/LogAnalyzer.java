@@ -0,0 +1,526 @@
+//
+// Offline tool that analyses request logs written by the server.
+// Reads current and rotated logs as memory-mapped chunks in parallel,
+// and reports request rates per command, per IP and per list with the top talkers.
+// Memory use is bounded by the number of counters kept, not by the size of the logs.
+//
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class LogAnalyzer {
+
+  // Size of each chunk of a log mapped and read by one thread, in bytes.
+  private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+  // Number of distinct keys each counter keeps, beyond which counts become approximate.
+  private static final int CAPACITY = 10000;
+
+  /**
+   * Counter of the most frequent keys, keeping at most twice its capacity in memory.
+   * When full, the least frequent keys are dropped and the highest dropped count becomes
+   * the error bound of every key counted afterwards (a mergeable Space-Saving summary).
+   */
+  public static class TopCounter {
+
+    // Count and error bound per key.
+    private HashMap<String, long[]> counts = new HashMap<String, long[]>();
+
+    // Highest count dropped so far, which any key not kept may have had.
+    private long floor = 0;
+
+    /**
+     * Counts one occurrence of a key.
+     *
+     * @param key Key to count
+     */
+    public void add(String key) {
+      add(key, 1, 0);
+    }
+
+    /**
+     * Counts occurrences of a key.
+     *
+     * @param key Key to count
+     * @param count Number of occurrences
+     * @param error Maximum overcount already in the count
+     */
+    private void add(String key, long count, long error) {
+      long[] entry = counts.get(key);
+
+      if (entry != null) {
+        entry[0] += count;
+        entry[1] += error;
+      } else {
+        // Key may have been dropped before, with a count up to the floor.
+        counts.put(key, new long[] { count + floor, error + floor });
+        if (counts.size() > 2 * CAPACITY) {
+          trim();
+        }
+      }
+    }
+
+    /**
+     * Drops all but the most frequent keys, raising the floor to the highest count dropped.
+     */
+    private void trim() {
+      List<Map.Entry<String, long[]>> entries = sorted();
+      for (int i = CAPACITY; i < entries.size(); i++) {
+        floor = Math.max(floor, entries.get(i).getValue()[0]);
+        counts.remove(entries.get(i).getKey());
+      }
+    }
+
+    /**
+     * Adds the counts of another counter to this counter.
+     *
+     * @param other Counter to merge
+     */
+    public void merge(TopCounter other) {
+      // Keys only in this counter may have been dropped by the other, up to its floor.
+      for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+        if (!other.counts.containsKey(entry.getKey())) {
+          entry.getValue()[0] += other.floor;
+          entry.getValue()[1] += other.floor;
+        }
+      }
+
+      // Adds every key of the other counter.
+      for (Map.Entry<String, long[]> entry : other.counts.entrySet()) {
+        add(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+      }
+    }
+
+    /**
+     * Returns keys from most to least frequent.
+     *
+     * @return Entries of key to count and error bound
+     */
+    public List<Map.Entry<String, long[]>> sorted() {
+      List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(counts.entrySet());
+      entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+      return entries;
+    }
+
+    /**
+     * Checks if counts may be overestimated because keys were dropped.
+     *
+     * @return True if any count is approximate
+     */
+    public boolean isApproximate() {
+      return floor > 0;
+    }
+  }
+
+  /**
+   * Result of analysing one chunk of a log, or of several merged chunks.
+   */
+  public static class Summary {
+
+    // Number of requests.
+    private long requests = 0;
+
+    // First and last request time, as yyyyMMddHHmmss.
+    private long first = Long.MAX_VALUE;
+    private long last = Long.MIN_VALUE;
+
+    // Requests per command, per IP and per list.
+    private TopCounter commands = new TopCounter();
+    private TopCounter ips = new TopCounter();
+    private TopCounter lists = new TopCounter();
+
+    /**
+     * Adds another summary to this summary.
+     *
+     * @param other Summary to merge
+     */
+    public void merge(Summary other) {
+      requests += other.requests;
+      first = Math.min(first, other.first);
+      last = Math.max(last, other.last);
+      commands.merge(other.commands);
+      ips.merge(other.ips);
+      lists.merge(other.lists);
+    }
+  }
+
+  /**
+   * Reads digits from a log line into a number, skipping any other characters.
+   *
+   * @param buffer Mapped chunk of the log
+   * @param start Start of the field
+   * @param end End of the field (exclusive)
+   * @param value Number read so far
+   * @return Number with the digits of the field appended
+   */
+  private static long digits(ByteBuffer buffer, int start, int end, long value) {
+    for (int i = start; i < end; i++) {
+      byte b = buffer.get(i);
+      if (b >= '0' && b <= '9') {
+        value = value * 10 + (b - '0');
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Creates a string from bytes of a log line.
+   *
+   * @param buffer Mapped chunk of the log
+   * @param start Start of the string
+   * @param end End of the string (exclusive)
+   * @return String of the bytes
+   */
+  private static String text(ByteBuffer buffer, int start, int end) {
+    byte[] bytes = new byte[end - start];
+    buffer.get(start, bytes);
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Checks a date and time read from a log line are real.
+   *
+   * @param date Date as yyyyMMdd
+   * @param clock Time as HHmmss
+   * @return True if the date and time are valid
+   */
+  private static boolean isValid(long date, long clock) {
+    // Checks number of digits.
+    if (date < 10000101L || date > 99991231L || clock < 0 || clock > 235959L) {
+      return false;
+    }
+
+    // Checks each field is in range.
+    int month = (int) (date / 100 % 100);
+    int day = (int) (date % 100);
+    if (month < 1 || month > 12 || day < 1 || clock / 100 % 100 > 59 || clock % 100 > 59) {
+      return false;
+    }
+
+    // Checks the day exists in the month, only needed past the 28th.
+    return day <= 28 || day <= YearMonth.of((int) (date / 10000), month).lengthOfMonth();
+  }
+
+  /**
+   * Analyses one line of a log in the "date|time|ip|request" format.
+   *
+   * @param buffer Mapped chunk of the log
+   * @param start Start of the line
+   * @param end End of the line, without end of line character
+   * @param summary Summary to add the line to
+   */
+  private static void analyseLine(ByteBuffer buffer, int start, int end, Summary summary) {
+    // Finds the three field separators.
+    int[] bars = new int[3];
+    int found = 0;
+    for (int i = start; i < end && found < 3; i++) {
+      if (buffer.get(i) == '|') {
+        bars[found++] = i;
+      }
+    }
+
+    // Ignores malformed lines.
+    if (found < 3) {
+      return;
+    }
+
+    // Records time of request, ignoring lines without a valid date and time.
+    long date = digits(buffer, start, bars[0], 0);
+    long clock = digits(buffer, bars[0] + 1, bars[1], 0);
+    if (!isValid(date, clock)) {
+      return;
+    }
+    long time = date * 1000000 + clock;
+    summary.first = Math.min(summary.first, time);
+    summary.last = Math.max(summary.last, time);
+    summary.requests++;
+
+    // Counts IP.
+    summary.ips.add(text(buffer, bars[1] + 1, bars[2]));
+
+    // Finds command and its first argument in the request.
+    int commandStart = bars[2] + 1;
+    int commandEnd = commandStart;
+    while (commandEnd < end && buffer.get(commandEnd) != ' ') {
+      commandEnd++;
+    }
+    int argumentEnd = commandEnd + 1;
+    while (argumentEnd < end && buffer.get(argumentEnd) != ' ') {
+      argumentEnd++;
+    }
+
+    // Counts command.
+    String command = text(buffer, commandStart, commandEnd);
+    summary.commands.add(command);
+
+    // Counts list, for commands that take a list number.
+    if (commandEnd < end && (command.equals("list") || command.equals("join")
+        || command.equals("leave") || command.equals("watch"))) {
+      int argumentStart = commandEnd + 1;
+      int argumentStop = Math.min(argumentEnd, end);
+
+      // Ignores arguments that are not list numbers, such as 'watch totals'.
+      for (int i = argumentStart; i < argumentStop; i++) {
+        if (buffer.get(i) < '0' || buffer.get(i) > '9') {
+          return;
+        }
+      }
+      if (argumentStart < argumentStop) {
+        summary.lists.add(text(buffer, argumentStart, argumentStop));
+      }
+    }
+  }
+
+  /**
+   * Analyses a chunk of a log made up of whole lines.
+   *
+   * @param file Log file
+   * @param start Start of the chunk
+   * @param end End of the chunk (exclusive)
+   * @return Summary of the chunk
+   * @throws IOException If the log cannot be read
+   */
+  public static Summary analyseChunk(Path file, long start, long end) throws IOException {
+    Summary summary = new Summary();
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      int length = buffer.limit();
+
+      // Analyses each line.
+      int lineStart = 0;
+      for (int i = 0; i < length; i++) {
+        if (buffer.get(i) == '\n') {
+          analyseLine(buffer, lineStart, i, summary);
+          lineStart = i + 1;
+        }
+      }
+
+      // Analyses a final line without end of line character.
+      if (lineStart < length) {
+        analyseLine(buffer, lineStart, length, summary);
+      }
+    }
+
+    return summary;
+  }
+
+  /**
+   * Splits a log into chunks of about the chunk size, ending each chunk after a whole line.
+   *
+   * @param file Log file
+   * @return Offsets of chunk boundaries, from 0 to the file size
+   * @throws IOException If the log cannot be read
+   */
+  public static List<Long> split(Path file) throws IOException {
+    List<Long> boundaries = new ArrayList<Long>();
+    boundaries.add(0L);
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      ByteBuffer buffer = ByteBuffer.allocate(4096);
+      long position = CHUNK_SIZE;
+
+      // Moves each nominal boundary forward to just after the next end of line.
+      while (position < size) {
+        long boundary = size;
+        search:
+        while (position < size) {
+          buffer.clear();
+          int read = channel.read(buffer, position);
+          for (int i = 0; i < read; i++) {
+            if (buffer.get(i) == '\n') {
+              boundary = position + i + 1;
+              break search;
+            }
+          }
+          position += Math.max(read, 0);
+        }
+        boundaries.add(boundary);
+        position = boundary + CHUNK_SIZE;
+      }
+
+      // Ends the last chunk at the end of the file.
+      if (boundaries.get(boundaries.size() - 1) < size) {
+        boundaries.add(size);
+      }
+    }
+
+    return boundaries;
+  }
+
+  /**
+   * Analyses logs in parallel chunks, merging each chunk's summary as it completes.
+   *
+   * @param files Log files
+   * @param threads Number of chunks analysed at once
+   * @return Summary of every log
+   * @throws Exception If a log cannot be read
+   */
+  public static Summary analyse(List<Path> files, int threads) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    CompletionService<Summary> completion = new ExecutorCompletionService<Summary>(pool);
+    Summary total = new Summary();
+    int running = 0;
+
+    try {
+      for (Path file : files) {
+        List<Long> boundaries = split(file);
+        for (int i = 0; i + 1 < boundaries.size(); i++) {
+          // Limits chunks in flight so memory stays bounded.
+          if (running == 2 * threads) {
+            total.merge(completion.take().get());
+            running--;
+          }
+
+          long start = boundaries.get(i);
+          long end = boundaries.get(i + 1);
+          completion.submit(() -> analyseChunk(file, start, end));
+          running++;
+        }
+      }
+
+      // Merges remaining chunks.
+      for (; running > 0; running--) {
+        total.merge(completion.take().get());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    return total;
+  }
+
+  /**
+   * Converts a yyyyMMddHHmmss number to a date and time.
+   *
+   * @param time Time as yyyyMMddHHmmss
+   * @return Date and time
+   */
+  private static LocalDateTime toDateTime(long time) {
+    return LocalDateTime.of((int) (time / 10000000000L), (int) (time / 100000000 % 100), (int) (time / 1000000 % 100),
+      (int) (time / 10000 % 100), (int) (time / 100 % 100), (int) (time % 100));
+  }
+
+  /**
+   * Prints the top entries of a counter with their request rates.
+   *
+   * @param title Heading for the counter
+   * @param counter Counter to print
+   * @param top Maximum number of entries to print
+   * @param seconds Time covered by the logs, in seconds
+   */
+  private static void printTop(String title, TopCounter counter, int top, long seconds) {
+    System.out.println(title + (counter.isApproximate() ? " (approximate):" : ":"));
+
+    List<Map.Entry<String, long[]>> entries = counter.sorted();
+    for (int i = 0; i < Math.min(top, entries.size()); i++) {
+      long count = entries.get(i).getValue()[0];
+      long error = entries.get(i).getValue()[1];
+      System.out.println(String.format("  %-24s %10d  %10.3f/s%s", entries.get(i).getKey(), count,
+        (double) count / seconds, (error > 0) ? "  (+/- " + error + ")" : ""));
+    }
+    System.out.println();
+  }
+
+  /**
+   * Finds the current log and rotated logs in the current directory.
+   *
+   * @return Log files, oldest first
+   * @throws IOException If the directory cannot be listed
+   */
+  public static List<Path> findLogs() throws IOException {
+    List<Path> files = new ArrayList<Path>();
+
+    // Rotated logs sort by time in their names.
+    try (DirectoryStream<Path> rotated = Files.newDirectoryStream(Paths.get("."), "log-*.txt")) {
+      for (Path file : rotated) {
+        files.add(file);
+      }
+    }
+    Collections.sort(files);
+
+    // Current log is the newest.
+    if (Files.exists(Paths.get(AccessLog.FILENAME))) {
+      files.add(Paths.get(AccessLog.FILENAME));
+    }
+
+    return files;
+  }
+
+  /**
+   * Validates command line arguments and prints the analysis of the logs.
+   * Usage is java LogAnalyzer [-top <n>] [log files...], reading logs in the current directory if none are given.
+   *
+   * @param args Command line arguments
+   */
+  public static void main(String[] args) {
+    // Number of entries printed per counter.
+    int top = 10;
+
+    // Log files to analyse.
+    List<Path> files = new ArrayList<Path>();
+
+    try {
+      // Reads options and files.
+      for (int i = 0; i < args.length; i++) {
+        if (args[i].equals("-top") && i + 1 < args.length) {
+          top = Integer.parseInt(args[++i]);
+        } else {
+          files.add(Paths.get(args[i]));
+        }
+      }
+
+      // Defaults to current and rotated logs.
+      if (files.isEmpty()) {
+        files = findLogs();
+      }
+    } catch (NumberFormatException e) {
+      System.out.println("Error: Usage is java LogAnalyzer [-top <int::entries>] [log files...]");
+
+      // Exits program.
+      System.exit(1);
+    } catch (IOException e) {
+      System.out.println("Error: Could not list log files.");
+
+      // Exits program.
+      System.exit(1);
+    }
+
+    // Analyses logs.
+    Summary summary = null;
+    try {
+      summary = analyse(files, Runtime.getRuntime().availableProcessors());
+    } catch (Exception e) {
+      System.out.println("Error: Could not read log files: " + e.getMessage());
+
+      // Exits program.
+      System.exit(1);
+    }
+
+    if (summary.requests == 0) {
+      System.out.println("There are no requests in " + files.size() + " log file(s).");
+      return;
+    }
+
+    // Time covered by the logs, at least one second.
+    LocalDateTime first = toDateTime(summary.first);
+    LocalDateTime last = toDateTime(summary.last);
+    long seconds = Math.max(1, Duration.between(first, last).getSeconds() + 1);
+
+    // Prints summary and top entries.
+    DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    System.out.println("Read " + summary.requests + " request(s) from " + files.size() + " log file(s), "
+      + format.format(first) + " to " + format.format(last) + " (" + String.format("%.3f", (double) summary.requests / seconds) + "/s).\n");
+    printTop("Requests per command", summary.commands, top, seconds);
+    printTop("Top " + top + " IPs", summary.ips, top, seconds);
+    printTop("Top " + top + " lists", summary.lists, top, seconds);
+  }
+}
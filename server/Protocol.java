@@ -5,6 +5,7 @@
 
 import java.io.*;
 import java.nio.file.*;
+import java.util.*;
 
 public class Protocol {
 
@@ -14,16 +15,31 @@ public class Protocol {
   // Maximum number of members per list.
   private int maxMembers;
 
+  // Clients watching for list changes.
+  private Watchers watchers;
+
+  // Shared state of the list files.
+  private ListStore store;
+
+  // Cache of encoded responses.
+  private ResponseCache cache;
+
   /**
    * Creates a protocol.
    * 
    * @param numberOfLists Array of lists
    * @param maxMembers Maximum number of members per list
+   * @param watchers Clients watching for list changes
+   * @param store Shared state of the list files
+   * @param cache Cache of encoded responses
    */
-  public Protocol(int numberOfLists, int maxMembers) {
+  public Protocol(int numberOfLists, int maxMembers, Watchers watchers, ListStore store, ResponseCache cache) {
     // Sets all private variables.
     this.numberOfLists = numberOfLists;
     this.maxMembers = maxMembers;
+    this.watchers = watchers;
+    this.store = store;
+    this.cache = cache;
   }
   
   /**
@@ -64,6 +80,105 @@ public class Protocol {
     return Integer.toString(lines);
   }
 
+  /**
+   * Encodes a member name as a line of a list file.
+   * Names starting with '-' or '\' are escaped so they cannot be read as tombstones.
+   * 
+   * @param name Member name
+   * @return Line for the list file, without end of line character
+   */
+  public static String encodeMember(String name) {
+    return (name.startsWith("-") || name.startsWith("\\")) ? "\\" + name : name;
+  }
+
+  /**
+   * Decodes a member name from a line of a list file.
+   * 
+   * @param line Member line, or tombstone line without its leading '-'
+   * @return Member name
+   */
+  public static String decodeMember(String line) {
+    return line.startsWith("\\") ? line.substring(1) : line;
+  }
+
+  /**
+   * Checks if a line of a list file is a tombstone, recording a member that left.
+   * 
+   * @param line Line of a list file
+   * @return True if the line is a tombstone
+   */
+  public static boolean isTombstone(String line) {
+    return line.startsWith("-");
+  }
+
+  /**
+   * Reads the current members of a list, removing one earlier member for every tombstone.
+   * 
+   * @param reader Reader over the lines of a list file
+   * @return Members in the order they joined
+   * @throws IOException If the list cannot be read
+   */
+  public static List<String> readMembers(BufferedReader reader) throws IOException {
+    // Stores member names and number of tombstones per name.
+    List<String> names = new ArrayList<String>();
+    Map<String, Integer> left = new HashMap<String, Integer>();
+
+    // Stores line from file.
+    String line;
+
+    // Separates members from tombstones.
+    while ((line = reader.readLine()) != null) {
+      if (isTombstone(line)) {
+        left.merge(decodeMember(line.substring(1)), 1, Integer::sum);
+      } else {
+        names.add(decodeMember(line));
+      }
+    }
+
+    // Removes one member per tombstone. Equal names are interchangeable, so any may be removed.
+    List<String> members = new ArrayList<String>();
+    for (String name : names) {
+      Integer count = left.get(name);
+      if (count != null && count > 0) {
+        left.put(name, count - 1);
+      } else {
+        members.add(name);
+      }
+    }
+
+    // Returns current members.
+    return members;
+  }
+
+  /**
+   * Calculates number of current members in a list file, ignoring members that left.
+   * 
+   * @param fileName Filename to count members from
+   * @return Number of members in the list, as a string
+   */
+  public static String countMembers(String fileName) {
+    // Initialises number of members in the list.
+    int members = 0;
+
+    // Stores line from file.
+    String line;
+    
+    try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+      // Each member line adds a member, and each tombstone removes one.
+      while ((line = reader.readLine()) != null) {
+        members += isTombstone(line) ? -1 : 1;
+      }
+    } catch (IOException e) {
+      System.out.println("Error: Could not read from " + fileName);
+
+      // Return error message
+      return "Error: Could not read from " + fileName + ".";
+    }
+
+    // Returns final number of members in list.
+    return Integer.toString(members);
+  }
+
   /**
    * Returns server message with number of lists, maximum sizes and number of members per list.
    * 
@@ -79,15 +194,18 @@ public class Protocol {
     // Counts nuber of members per file and creates output message.
     for (int i = 0; i < numberOfLists; i++) {
       // Produces the filename for the list.
-      String filename = "list-" + Integer.toString(i) + ".txt";
+      String filename = ListStore.filename(i + 1);
+
+      // Counts current members of the list.
+      String members = countMembers(filename);
 
       // Return error message if list cannot be read from
-      if (countLines(filename).contains("Error:")) {
+      if (members.contains("Error:")) {
         return "Error: Could not read from " + filename + ".";
       }
       
       // Concatenates message for each list.
-      output += "List " + Integer.toString(i+1) + " has " + countLines(filename) + " member(s).";
+      output += "List " + Integer.toString(i+1) + " has " + members + " member(s).";
 
       // Adds new line character after each line except the last.
       if (i != numberOfLists - 1) {
@@ -106,9 +224,6 @@ public class Protocol {
    * @return Outputs every member in the list or error message.
    */
   public String processList(int listNumber) {
-    // Initialise the output message.
-    String output = "";
-
     // Checks if list exists.
     if (listNumber < 1 || listNumber > numberOfLists) {
       // If list doesn't exist then return response.
@@ -116,24 +231,13 @@ public class Protocol {
     }
 
     // Produces the filename for the list.
-    String filename = "list-" + Integer.toString(listNumber - 1) + ".txt";
+    String filename = ListStore.filename(listNumber);
 
-    // Checks if list is empty.
-    if (countLines(filename).equals("0")) {
-      // If there are no names then return response.
-      return "There are no members in list " + Integer.toString(listNumber) + ".";
-    }
+    // Stores current members of the list.
+    List<String> members;
 
-    // Stores member from file.
-    String member;
-
-    // If list exists and contains members, output members sequentially.
     try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-      // Whilst there are members in the list.
-      while ((member = reader.readLine()) != null) {
-        // Concatenates member to output.
-        output += member + "\n";
-      }
+      members = readMembers(reader);
     } catch (IOException e) {
       System.out.println("Error: Could not read from " + filename);
 
@@ -141,8 +245,14 @@ public class Protocol {
       return "Failed. Could not read from list " + filename + ".";
     }
 
-    // Removes final new line character
-    return chop(output);
+    // Checks if list is empty.
+    if (members.isEmpty()) {
+      // If there are no names then return response.
+      return "There are no members in list " + Integer.toString(listNumber) + ".";
+    }
+
+    // Outputs members sequentially, one per line.
+    return String.join("\n", members);
   }
 
   /**
@@ -154,7 +264,7 @@ public class Protocol {
    */
   public String processJoin(int listNumber, String name) {
     // Add end of line character to name.
-    String list_name = name + "\n";
+    String list_name = encodeMember(name) + "\n";
 
     // Checks if list exists.
     if (listNumber < 1 || listNumber > numberOfLists) {
@@ -163,17 +273,29 @@ public class Protocol {
     }
 
     // Produces filename for the list.
-    String filename = "list-" + Integer.toString(listNumber - 1) + ".txt";
+    String filename = ListStore.filename(listNumber);
+
+    // Only one join or leave writes to the list at a time.
+    store.lock(listNumber);
+    try {
+      // Number of members before joining, members that left do not count.
+      int members = Integer.parseInt(countMembers(filename));
+
+      // If the list is full.
+      if (members >= maxMembers) {
+        // Returns error response.
+        return "Failed. List " + Integer.toString(listNumber) + " is full.";
+      }
 
-    // If the list is full.
-    if (Integer.parseInt(countLines(filename)) == maxMembers) {
-      // Returns error response.
-      return "Failed. List " + Integer.toString(listNumber) + " is full.";
-    } else {
       // If there is space in the list.
       try {
         // Writes name to list file.
         Files.write(Paths.get(filename), list_name.getBytes(), StandardOpenOption.APPEND);
+        store.recordJoin(listNumber);
+        cache.invalidate(listNumber);
+
+        // Pushes the join to watching clients.
+        watchers.publishJoin(listNumber, name, members + 1);
 
         // Returns successs response.
         return "Success. \"" + name + "\" joined list " + Integer.toString(listNumber) + ".";
@@ -182,9 +304,96 @@ public class Protocol {
         // Returns error response.
         return "Failed. Error in writing to list.";
       }
+    } finally {
+      store.unlock(listNumber);
+    }
+  }
+
+  /**
+   * Attempt to remove a member name from a list by recording a tombstone, and return to the user if this was successful or not.
+   * The list file is not rewritten, the compactor later removes the member and its tombstone.
+   * 
+   * @param listNumber Number specifying list to leave, sent by client.
+   * @param name Name to remove from the specified list.
+   * @return Outputs success or failed message
+   */
+  public String processLeave(int listNumber, String name) {
+    // Checks if list exists.
+    if (listNumber < 1 || listNumber > numberOfLists) {
+      // Returns error response.
+      return "Failed. There is no list " + Integer.toString(listNumber) + ".";
+    }
+
+    // Produces filename for the list.
+    String filename = ListStore.filename(listNumber);
+
+    // Only one join or leave writes to the list at a time.
+    store.lock(listNumber);
+    try {
+      // Stores current members of the list.
+      List<String> members;
+
+      try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+        members = readMembers(reader);
+      } catch (IOException e) {
+        System.out.println("Error: Could not read from " + filename);
+
+        // Returns error response.
+        return "Failed. Could not read from list " + filename + ".";
+      }
+
+      // If the name is not in the list.
+      if (!members.contains(name)) {
+        // Returns error response.
+        return "Failed. \"" + name + "\" is not in list " + Integer.toString(listNumber) + ".";
+      }
+
+      try {
+        // Writes tombstone to list file.
+        Files.write(Paths.get(filename), ("-" + encodeMember(name) + "\n").getBytes(), StandardOpenOption.APPEND);
+        store.recordLeave(listNumber);
+        cache.invalidate(listNumber);
+
+        // Pushes the leave to watching clients.
+        watchers.publishLeave(listNumber, name, members.size() - 1);
+
+        // Returns successs response.
+        return "Success. \"" + name + "\" left list " + Integer.toString(listNumber) + ".";
+      } catch (IOException e) {
+        System.out.println("Error: Could not write to list" + Integer.toString(listNumber) +  ".");
+        // Returns error response.
+        return "Failed. Error in writing to list.";
+      }
+    } finally {
+      store.unlock(listNumber);
     }
   }
 
+  /**
+   * Joins the words of a name sent by the client.
+   * 
+   * @param request Client request split into words
+   * @return Name made of every word after the list number
+   */
+  public static String getName(String[] request) {
+    // Initialises name.
+    String name = "";
+
+    // Iterates through words in name.
+    for (int i = 2; i < request.length; i++) {
+      // Concatenates word to name.
+      name += request[i];
+
+      // Adds a space between each name.
+      if (i != request.length - 1) {
+        name += " ";
+      }
+    }
+
+    // Returns name.
+    return name;
+  }
+
   /**
    * Processes client input.
    * 
@@ -216,24 +425,22 @@ public class Protocol {
 
       // If user types in the command 'join'.
       case "join":
-      // Initialises name.
-        String name = "";
-
-        // Iterates through words in name.
-        for (int i = 2; i < request.length; i++) {
-          // Concatenates word to name.
-          name += request[i];
-
-          // Adds a space between each name.
-          if (i != request.length - 1) {
-            name += " ";
-          }
-        }
-
         // Gets output for 'join' command.
-        output = processJoin(Integer.parseInt(request[1]), name);
+        output = processJoin(Integer.parseInt(request[1]), getName(request));
+        break;
+
+      // If user types in the command 'leave'.
+      case "leave":
+        // Gets output for 'leave' command.
+        output = processLeave(Integer.parseInt(request[1]), getName(request));
         break;
       
+      // If user types in the command 'stats'.
+      case "stats":
+        // Gets output for 'stats' command.
+        output = cache.getStats() + "\n" + Acceptor.getStats();
+        break;
+
       // If invalid client input/request. (should not reach this stage)
       default:
         // Sets error message
@@ -243,4 +450,53 @@ public class Protocol {
     // The final server response to be outputted to the client.
     return output;
   }
+
+  /**
+   * Processes client input into the encoded response, ready to write to the socket.
+   * Responses to 'totals' and 'list' are cached until the lists they read change.
+   * 
+   * @param input Client input
+   * @return Encoded output to the client, including end of line character
+   */
+  public byte[] respond(String input) {
+    // Split client input into request.
+    String[] request = input.split(" ");
+
+    // Stores cache key and version of the list(s) read, if the response can be cached.
+    String key = null;
+    long version = 0;
+
+    if (request[0].equals("totals")) {
+      // 'totals' reads every list.
+      key = "totals";
+      version = store.getVersion();
+    } else if (request[0].equals("list") && request.length == 2) {
+      // 'list' reads a single list.
+      int listNumber = Integer.parseInt(request[1]);
+      if (listNumber >= 1 && listNumber <= numberOfLists) {
+        key = "list " + Integer.toString(listNumber);
+        version = store.getVersion(listNumber);
+      }
+    }
+
+    // Returns cached response if it is up to date.
+    if (key != null) {
+      byte[] cached = cache.get(key, version);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    // Builds and encodes response.
+    String output = processInput(input);
+    byte[] response = (output + "\n").getBytes();
+
+    // Caches response, unless reading the list(s) failed.
+    if (key != null && !output.startsWith("Error:") && !output.startsWith("Failed.")) {
+      cache.put(key, version, response);
+    }
+
+    // Returns encoded response.
+    return response;
+  }
 }
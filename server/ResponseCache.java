@@ -0,0 +1,139 @@
+//
+// Cache of encoded server responses for 'totals' and 'list'.
+// Entries are stamped with the version of the lists they were built from,
+// and the least recently used entries are evicted to stay within a memory bound.
+//
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class ResponseCache {
+
+  // Maximum total size of cached responses, in bytes.
+  private long maxBytes;
+
+  // Total size of cached responses, in bytes (guarded by this).
+  private long bytes = 0;
+
+  // Cached responses by command, in least recently used order (guarded by this).
+  private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  // Number of requests answered from and not from the cache.
+  private AtomicLong hits = new AtomicLong();
+  private AtomicLong misses = new AtomicLong();
+
+  /**
+   * Cached response and the version it was built from.
+   */
+  private static class Entry {
+
+    // Version of the list(s) when the response was built.
+    private long version;
+
+    // Encoded response, ready to write to the socket.
+    private byte[] response;
+
+    /**
+     * Creates a cache entry.
+     *
+     * @param version Version of the list(s) when the response was built
+     * @param response Encoded response
+     */
+    private Entry(long version, byte[] response) {
+      this.version = version;
+      this.response = response;
+    }
+  }
+
+  /**
+   * Creates a response cache.
+   *
+   * @param maxBytes Maximum total size of cached responses, in bytes
+   */
+  public ResponseCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Gets a cached response if it was built from the current version.
+   *
+   * @param key Command the response answers
+   * @param version Current version of the list(s) the command reads
+   * @return Encoded response, or null if not cached or out of date
+   */
+  public synchronized byte[] get(String key, long version) {
+    Entry entry = entries.get(key);
+
+    // Out of date or missing.
+    if (entry == null || entry.version != version) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    hits.incrementAndGet();
+    return entry.response;
+  }
+
+  /**
+   * Caches a response, evicting least recently used responses if over the memory bound.
+   *
+   * @param key Command the response answers
+   * @param version Version of the list(s) the response was built from
+   * @param response Encoded response
+   */
+  public synchronized void put(String key, long version, byte[] response) {
+    // Responses larger than the whole cache are never cached.
+    if (response.length > maxBytes) {
+      return;
+    }
+
+    // Replaces any older response, unless a newer one was cached meanwhile.
+    Entry old = entries.get(key);
+    if (old != null && old.version > version) {
+      return;
+    }
+    remove(key);
+    entries.put(key, new Entry(version, response));
+    bytes += response.length;
+
+    // Evicts least recently used responses.
+    Iterator<Entry> eldest = entries.values().iterator();
+    while (bytes > maxBytes) {
+      bytes -= eldest.next().response.length;
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Removes a cached response.
+   *
+   * @param key Command the response answers
+   */
+  public synchronized void remove(String key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      bytes -= entry.response.length;
+    }
+  }
+
+  /**
+   * Removes the cached responses that read a list, after it changed.
+   *
+   * @param listNumber List that changed
+   */
+  public void invalidate(int listNumber) {
+    remove("list " + Integer.toString(listNumber));
+    remove("totals");
+  }
+
+  /**
+   * Returns cache statistics.
+   *
+   * @return Server message for user command "stats"
+   */
+  public synchronized String getStats() {
+    return "Cache has " + Integer.toString(entries.size()) + " response(s) using " + Long.toString(bytes)
+      + " of " + Long.toString(maxBytes) + " byte(s), with " + Long.toString(hits.get()) + " hit(s) and "
+      + Long.toString(misses.get()) + " miss(es).";
+  }
+}
@@ -1,6 +1,6 @@
 //
 // Multi threaded server that initialises log file and list files.
-// Uses an Executor to handle multiple client connections concurrently.
+// Uses acceptor threads and an Executor to handle multiple client connections concurrently.
 //
 
 import java.io.*;
@@ -84,6 +84,76 @@ public class Server {
     }
   }
 
+  /**
+   * Reads a positive integer setting from a system property.
+   * 
+   * @param name Name of the system property
+   * @param defaultValue Value used when the property is not set
+   * @return Value of the setting
+   */
+  public static int getSetting(String name, int defaultValue) {
+    // Stores setting.
+    int value = defaultValue;
+
+    try {
+      value = Integer.parseInt(System.getProperty(name, Integer.toString(defaultValue)));
+    } catch (NumberFormatException ex) {
+      System.out.println("Error: Setting " + name + " should be an integer.");
+
+      // Exits program.
+      System.exit(1);
+    }
+
+    // Checks setting is not too small.
+    if (value < 1) {
+      System.out.println("Error: Setting " + name + " should be greater than 0.");
+
+      // Exits program.
+      System.exit(1);
+    }
+
+    // Returns setting.
+    return value;
+  }
+
+  /**
+   * Creates the executor that runs client handlers.
+   * Uses a fixed pool unless -Dserver.pool=adaptive is given.
+   * 
+   * @return Executor service for client handlers
+   */
+  public static ExecutorService createPool() {
+    // Pool mode, either "fixed" or "adaptive".
+    String mode = System.getProperty("server.pool", "fixed");
+
+    if (mode.equals("adaptive")) {
+      // Bounds and controller interval for adaptive pool.
+      int min = getSetting("server.pool.min", 4);
+      int max = getSetting("server.pool.max", 200);
+      int interval = getSetting("server.pool.interval", 1000);
+
+      // Checks bounds are in order.
+      if (min > max) {
+        System.out.println("Error: Setting server.pool.min should not exceed server.pool.max.");
+
+        // Exits program.
+        System.exit(1);
+      }
+
+      System.out.println("Pool: adaptive between " + min + " and " + max + " threads.");
+      return new AdaptiveExecutor(min, max, interval);
+    } else if (mode.equals("fixed")) {
+      // Creates fixed pool, with 25 threads by default.
+      return Executors.newFixedThreadPool(getSetting("server.pool.size", 25));
+    }
+
+    System.out.println("Error: Setting server.pool should be fixed or adaptive.");
+
+    // Exits program.
+    System.exit(1);
+    return null;
+  }
+
   /**
    * Continuously runs multi-threaded server.
    * Validates commang line arguments and connects server to socket.
@@ -130,32 +200,88 @@ public class Server {
 
     // Creates log file.
     server.createLog();
-    
-    // Creates server socket and executor service.
-    ServerSocket serverSocket = null;
-    ExecutorService service = null;
 
+    // Opens log file, rotating it at 64 MB or once a day by default.
+    AccessLog accessLog = null;
     try {
-      // Connects server to socket 9246.  
-      serverSocket = new ServerSocket(9246);
+      accessLog = new AccessLog(getSetting("server.log.maxBytes", 64 * 1024 * 1024),
+        getSetting("server.log.rotateMinutes", 24 * 60) * 60000L);
     } catch (IOException e) {
-      System.err.println("Error: Could not listen on port: 9246.");
-      
+      System.out.println("Error: Could not open log file.");
+
+      // Exits program.
+      System.exit(1);
+    }
+    AccessLog log = accessLog;
+
+    // Creates registry of clients watching for list changes.
+    Watchers watchers = new Watchers(numberOfLists, getSetting("server.watch.timeout", 10000));
+
+    // Creates shared state of the list files.
+    ListStore store = new ListStore(numberOfLists);
+
+    // Creates cache of encoded responses, 16 MB by default.
+    ResponseCache cache = new ResponseCache(getSetting("server.cache.bytes", 16 * 1024 * 1024));
+
+    // Compacts list files in the background once enough members have left.
+    ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor();
+    int compactInterval = getSetting("server.compact.interval", 5000);
+    compactor.scheduleWithFixedDelay(new ListCompactor(store, getSetting("server.compact.threshold", 50)),
+      compactInterval, compactInterval, TimeUnit.MILLISECONDS);
+    
+    // Reads bind settings.
+    int port = getSetting("server.port", 9246);
+    int backlog = getSetting("server.backlog", 1024);
+    int acceptors = getSetting("server.acceptors", Math.min(4, Runtime.getRuntime().availableProcessors()));
+    boolean tcpNoDelay = Boolean.parseBoolean(System.getProperty("server.tcpNoDelay", "true"));
+    int sendBufferSize = (System.getProperty("server.sendBuffer") == null) ? 0 : getSetting("server.sendBuffer", 0);
+    int receiveBufferSize = (System.getProperty("server.receiveBuffer") == null) ? 0 : getSetting("server.receiveBuffer", 0);
+
+    // Address to bind to, all addresses by default.
+    InetSocketAddress address = null;
+    try {
+      String bind = System.getProperty("server.bind");
+      address = (bind == null) ? new InetSocketAddress(port) : new InetSocketAddress(InetAddress.getByName(bind), port);
+    } catch (UnknownHostException e) {
+      System.out.println("Error: Setting server.bind is not a known address.");
+
       // Exits program.
       System.exit(1);
     }
 
-    // Creates fixed pool with 25 threads.
-    service = Executors.newFixedThreadPool(25);
+    // Each acceptor gets its own socket if the port can be shared, otherwise all share one socket.
+    boolean reusePort = acceptors > 1 && Acceptor.supportsReusePort();
+    ServerSocket[] serverSockets = new ServerSocket[reusePort ? acceptors : 1];
 
     try {
-      // Continuously runs server, accepting client requests.
-      while (true) {
-        Socket client = serverSocket.accept();
-        service.submit(new ClientHandler(client, numberOfLists, maxMembers));
+      // SO_REUSEPORT would let this server share the port with one already running,
+      // so first checks the port is free with a socket that does not allow sharing.
+      if (reusePort) {
+        Acceptor.bind(address, backlog, false, 0).close();
+      }
+
+      // Connects server to socket(s).
+      for (int i = 0; i < serverSockets.length; i++) {
+        serverSockets[i] = Acceptor.bind(address, backlog, reusePort, receiveBufferSize);
       }
     } catch (IOException e) {
-      System.out.println("Error: An error occured creating log file.");
+      System.err.println("Error: Could not listen on port: " + Integer.toString(port) + ".");
+      
+      // Exits program.
+      System.exit(1);
+    }
+
+    System.out.println("Listening on " + address + " with " + acceptors + " acceptor(s)"
+      + (reusePort ? " using SO_REUSEPORT." : " sharing one socket."));
+
+    // Creates fixed or adaptive pool.
+    ExecutorService service = createPool();
+
+    // Continuously runs server, accepting client requests on every acceptor.
+    for (int i = 0; i < acceptors; i++) {
+      new Acceptor(i, serverSockets[i % serverSockets.length], service,
+        client -> new ClientHandler(client, numberOfLists, maxMembers, watchers, store, cache, log),
+        tcpNoDelay, sendBufferSize).start();
     }
   }
 }
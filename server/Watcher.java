@@ -0,0 +1,247 @@
+//
+// Watcher that holds a client connection open for the 'watch' command.
+// Buffers pushed events and writes them to the client on its own thread,
+// so a client that stops reading can only hold up itself.
+//
+
+import java.net.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class Watcher implements Runnable {
+
+  // Maximum number of undelivered joins and leaves before the watcher is disconnected.
+  public static final int BUFFER_SIZE = 256;
+
+  // Stack size of each watcher thread, kept small so thousands of watchers fit.
+  private static final long STACK_SIZE = 256 * 1024;
+
+  // Stores socket of the watching client.
+  private Socket socket;
+
+  // Writer to socket output to the watching client.
+  private PrintWriter out;
+
+  // List being watched, or 0 when watching totals.
+  private int listNumber;
+
+  // Registry this watcher is subscribed to.
+  private Watchers watchers;
+
+  // Buffer of join and leave events waiting to be written (guarded by this).
+  private ArrayDeque<String> buffer = new ArrayDeque<String>();
+
+  // Latest member count per list, coalesced until written (guarded by this, totals only).
+  private int[] counts;
+
+  // Whether the count for each list has changed since it was last written (guarded by this).
+  private boolean[] dirty;
+
+  // Whether any count has changed since counts were last written (guarded by this).
+  private boolean anyDirty = false;
+
+  // Time in milliseconds since events have been waiting to reach the client, or 0 if none are.
+  private AtomicLong pendingSince = new AtomicLong();
+
+  // Whether this watcher has been disconnected.
+  private AtomicBoolean closed = new AtomicBoolean(false);
+
+  /**
+   * Creates a watcher.
+   *
+   * @param socket Socket connected to the watching client
+   * @param listNumber List to watch, or 0 to watch totals
+   * @param numberOfLists Total number of lists
+   * @param watchers Registry the watcher subscribes to
+   * @throws IOException If the socket output cannot be opened
+   */
+  public Watcher(Socket socket, int listNumber, int numberOfLists, Watchers watchers) throws IOException {
+    // Sets all private variables.
+    this.socket = socket;
+    this.listNumber = listNumber;
+    this.watchers = watchers;
+    this.counts = new int[numberOfLists];
+    this.dirty = new boolean[numberOfLists];
+
+    // Writes are flushed once per batch rather than once per line.
+    this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+  }
+
+  /**
+   * Starts the thread that writes events to the client.
+   */
+  public void start() {
+    new Thread(null, this, "Watcher", STACK_SIZE).start();
+  }
+
+  /**
+   * Returns the list being watched.
+   *
+   * @return List number, or 0 when watching totals
+   */
+  public int getListNumber() {
+    return listNumber;
+  }
+
+  /**
+   * Queues a line to be written to the client. Never blocks.
+   * Disconnects the watcher if its buffer is full, so it cannot hold back the join.
+   *
+   * @param line Line to write to the client
+   */
+  public void push(String line) {
+    synchronized (this) {
+      if (buffer.size() < BUFFER_SIZE) {
+        buffer.add(line);
+        pendingSince.compareAndSet(0, System.currentTimeMillis());
+        notify();
+        return;
+      }
+    }
+
+    // Slow watcher, drop it rather than buffering without limit.
+    System.out.println("Watcher on " + socket.getInetAddress().getHostAddress() + " is too slow, disconnecting.");
+    close();
+  }
+
+  /**
+   * Records the latest member count of a list to be written to the client. Never blocks.
+   * Counts that change again before being written are coalesced into one line.
+   *
+   * @param changedList List number whose count changed
+   * @param count New number of members in the list
+   */
+  public synchronized void pushCount(int changedList, int count) {
+    counts[changedList - 1] = count;
+    dirty[changedList - 1] = true;
+    anyDirty = true;
+    pendingSince.compareAndSet(0, System.currentTimeMillis());
+    notify();
+  }
+
+  /**
+   * Checks if events have been waiting to reach the client for too long.
+   * This also covers a write blocked because the client stopped reading.
+   *
+   * @param now Current time in milliseconds
+   * @param timeout Maximum time events may wait, in milliseconds
+   * @return True if the watcher is stalled
+   */
+  public boolean isStalled(long now, long timeout) {
+    long since = pendingSince.get();
+    return since != 0 && now - since > timeout;
+  }
+
+  /**
+   * Checks if the client is still connected, without waiting for it.
+   * Watching clients send nothing, so anything read is ignored.
+   *
+   * @return False if the client has closed or reset the connection
+   */
+  private boolean isConnected() {
+    try {
+      // Reads with the shortest timeout, a live client has nothing to read.
+      socket.setSoTimeout(1);
+      return socket.getInputStream().read() != -1;
+    } catch (SocketTimeoutException e) {
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Waits for events and writes them to the client until disconnected.
+   * While no events arrive, checks every interval that the client is still connected.
+   */
+  @Override
+  public void run() {
+    // Lines taken from the buffer for the next write.
+    List<String> lines = new ArrayList<String>();
+
+    // Time between checks that an idle client is still connected.
+    long checkInterval = watchers.getCheckInterval();
+
+    while (!closed.get()) {
+      // Whether no event arrived while waiting.
+      boolean idle;
+
+      synchronized (this) {
+        // Waits for an event, at most until the next connection check.
+        if (buffer.isEmpty() && !anyDirty && !closed.get()) {
+          try {
+            wait(checkInterval);
+          } catch (InterruptedException e) {
+            close();
+            return;
+          }
+        }
+        idle = buffer.isEmpty() && !anyDirty;
+
+        // Takes buffered joins and leaves.
+        lines.addAll(buffer);
+        buffer.clear();
+
+        // Takes changed counts, one line per list.
+        for (int i = 0; i < dirty.length; i++) {
+          if (dirty[i]) {
+            lines.add("List " + Integer.toString(i + 1) + " has " + Integer.toString(counts[i]) + " member(s).");
+            dirty[i] = false;
+          }
+        }
+        anyDirty = false;
+      }
+
+      // Nothing to write, so disconnects if the client has gone away while its list is quiet.
+      if (idle) {
+        if (!isConnected() && !closed.get()) {
+          System.out.println("Watcher on " + socket.getInetAddress().getHostAddress() + " has disconnected.");
+          close();
+        }
+        continue;
+      }
+
+      // Writes the batch outside the lock, so pushes never wait for the client.
+      for (String line : lines) {
+        out.println(line);
+      }
+      lines.clear();
+      out.flush();
+
+      // Disconnects if the client has gone away.
+      if (out.checkError()) {
+        close();
+        return;
+      }
+
+      // Nothing is waiting unless more was pushed during the write, which has waited since now at most.
+      synchronized (this) {
+        pendingSince.set((buffer.isEmpty() && !anyDirty) ? 0 : System.currentTimeMillis());
+      }
+    }
+  }
+
+  /**
+   * Unsubscribes the watcher and closes its connection.
+   */
+  public void close() {
+    // Only closes once.
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+
+    // Stops receiving events and wakes the writer thread.
+    watchers.unsubscribe(this);
+    synchronized (this) {
+      notify();
+    }
+
+    // Free up resources for this connection, unblocking any write in progress.
+    try {
+      socket.close();
+    } catch (IOException e) {
+      System.out.println("Error: Could not close watcher connection.");
+    }
+  }
+}
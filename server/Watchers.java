@@ -0,0 +1,152 @@
+//
+// Registry of clients watching lists or totals.
+// Fans out list changes to every subscribed watcher.
+//
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class Watchers {
+
+  // Watchers subscribed to each list.
+  private List<Set<Watcher>> listWatchers = new ArrayList<Set<Watcher>>();
+
+  // Watchers subscribed to totals.
+  private Set<Watcher> totalsWatchers = ConcurrentHashMap.newKeySet();
+
+  // Maximum time events may wait to reach a watcher before it is disconnected, in milliseconds.
+  private long timeout;
+
+  // Periodically disconnects stalled watchers.
+  private ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor();
+
+  /**
+   * Creates a watcher registry.
+   *
+   * @param numberOfLists Total number of lists
+   * @param timeout Maximum time events may wait to reach a watcher before it is disconnected, in milliseconds
+   */
+  public Watchers(int numberOfLists, long timeout) {
+    // Sets all private variables.
+    this.timeout = timeout;
+
+    // Creates an empty set of watchers for each list.
+    for (int i = 0; i < numberOfLists; i++) {
+      listWatchers.add(ConcurrentHashMap.newKeySet());
+    }
+
+    // Checks for stalled watchers a few times per timeout.
+    long interval = getCheckInterval();
+    reaper.scheduleWithFixedDelay(this::disconnectStalled, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns how often watchers are checked, a few times per timeout.
+   *
+   * @return Time between checks, in milliseconds
+   */
+  public long getCheckInterval() {
+    return Math.max(1, timeout / 4);
+  }
+
+  /**
+   * Disconnects every watcher whose events have not reached the client within the timeout,
+   * including watchers blocked writing to a client that stopped reading.
+   */
+  private void disconnectStalled() {
+    long now = System.currentTimeMillis();
+
+    // Checks watchers of totals and of every list.
+    List<Set<Watcher>> all = new ArrayList<Set<Watcher>>(listWatchers);
+    all.add(totalsWatchers);
+    for (Set<Watcher> set : all) {
+      for (Watcher watcher : set) {
+        if (watcher.isStalled(now, timeout)) {
+          System.out.println("Watcher has not read events for " + timeout + "ms, disconnecting.");
+          watcher.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the set of watchers for a list, or for totals.
+   *
+   * @param listNumber List number, or 0 for totals
+   * @return Set of watchers
+   */
+  private Set<Watcher> watchersOf(int listNumber) {
+    return (listNumber == 0) ? totalsWatchers : listWatchers.get(listNumber - 1);
+  }
+
+  /**
+   * Starts sending events to a watcher.
+   *
+   * @param watcher Watcher to subscribe
+   */
+  public void subscribe(Watcher watcher) {
+    watchersOf(watcher.getListNumber()).add(watcher);
+  }
+
+  /**
+   * Stops sending events to a watcher.
+   *
+   * @param watcher Watcher to unsubscribe
+   */
+  public void unsubscribe(Watcher watcher) {
+    watchersOf(watcher.getListNumber()).remove(watcher);
+  }
+
+  /**
+   * Pushes a join to watchers of the list and the new count to watchers of totals.
+   * Never blocks, each watcher writes on its own thread and stalled watchers are disconnected.
+   *
+   * @param listNumber List that was joined
+   * @param name Name that joined the list
+   * @param count New number of members in the list
+   */
+  public void publishJoin(int listNumber, String name, int count) {
+    // Creates event message.
+    String line = "\"" + name + "\" joined list " + Integer.toString(listNumber) + ".";
+
+    // Pushes join to watchers of the list.
+    for (Watcher watcher : watchersOf(listNumber)) {
+      watcher.push(line);
+    }
+
+    // Pushes count to watchers of totals.
+    publishCount(listNumber, count);
+  }
+
+  /**
+   * Pushes a leave to watchers of the list and the new count to watchers of totals.
+   *
+   * @param listNumber List that was left
+   * @param name Name that left the list
+   * @param count New number of members in the list
+   */
+  public void publishLeave(int listNumber, String name, int count) {
+    // Creates event message.
+    String line = "\"" + name + "\" left list " + Integer.toString(listNumber) + ".";
+
+    // Pushes leave to watchers of the list.
+    for (Watcher watcher : watchersOf(listNumber)) {
+      watcher.push(line);
+    }
+
+    // Pushes count to watchers of totals.
+    publishCount(listNumber, count);
+  }
+
+  /**
+   * Pushes a changed member count to watchers of totals.
+   *
+   * @param listNumber List whose count changed
+   * @param count New number of members in the list
+   */
+  public void publishCount(int listNumber, int count) {
+    for (Watcher watcher : totalsWatchers) {
+      watcher.pushCount(listNumber, count);
+    }
+  }
+}